@@ -64,12 +64,16 @@ public class DataProcessor {
     }
 
     public void insertRecordsFooLockTable(int count, String tableName) {
+        insertRecordsFooLockTable(count, tableName, "XXX");
+    }
+
+    public void insertRecordsFooLockTable(int count, String tableName, String recordStatus) {
         transactionTemplate.executeWithoutResult(status -> {
             System.out.println("Start loading " + count + " records");
             var batches = new ArrayList<Object[]>();
             for (int i = 0; i < count; i++) {
                 var row = new Object[]{
-                        "XXX",
+                        recordStatus,
                         Date.from(ZonedDateTime.now().toInstant()),
                         RandomUtils.nextBoolean() ? Date.from(ZonedDateTime.now().toInstant()) : null};
                 batches.add(row);
@@ -95,6 +99,38 @@ public class DataProcessor {
         return tableLockCount(executorService, allLocksSql());
     }
 
+    public int lockCountAllSessions(ExecutorService executorService) {
+        var countFuture = executorService.submit(() ->
+                transactionTemplate.execute(status -> {
+                    var count = jdbcTemplate.queryForObject(allLocksSql() + """
+                            SELECT COUNT(*)
+                            FROM myLocks
+                            """, Number.class);
+                    return count.intValue();
+                }));
+
+        try {
+            return countFuture.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ExceptionUtils.rethrow(e);
+        } catch (ExecutionException | TimeoutException e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+
+    public int rowLockCountForSession(ExecutorService executorService, int sessionId) {
+        return rowLockCount(executorService, sessionLocksSql(sessionId));
+    }
+
+    public int hobtLockCountForSession(ExecutorService executorService, int sessionId) {
+        return objectLockCount(executorService, sessionLocksSql(sessionId), "HOBT");
+    }
+
+    public int tableLockCountForSession(ExecutorService executorService, int sessionId) {
+        return tableLockCount(executorService, sessionLocksSql(sessionId));
+    }
+
     private int rowLockCount(ExecutorService executorService, String sqlWith) {
         return objectLockCount(executorService, sqlWith, "RID");
     }
@@ -154,6 +190,53 @@ public class DataProcessor {
         }
     }
 
+    public LockWaits lockWaits() {
+        return jdbcTemplate.queryForObject("""
+                SELECT COALESCE(SUM(waiting_tasks_count), 0) AS waiting_tasks,
+                       COALESCE(SUM(wait_time_ms), 0)        AS wait_time_ms
+                FROM sys.dm_os_wait_stats
+                WHERE wait_type LIKE 'LCK[_]M[_]%'
+                """, (rs, rowNum) -> new LockWaits(rs.getLong("waiting_tasks"), rs.getLong("wait_time_ms")));
+    }
+
+    public LockPromotions lockPromotions(String tableName) {
+        return jdbcTemplate.queryForObject("""
+                SELECT COALESCE(SUM(index_lock_promotion_attempt_count), 0) AS attempts,
+                       COALESCE(SUM(index_lock_promotion_count), 0)         AS promotions
+                FROM sys.dm_db_index_operational_stats(DB_ID(), OBJECT_ID(?), NULL, NULL)
+                """, (rs, rowNum) -> new LockPromotions(rs.getLong("attempts"), rs.getLong("promotions")), tableName);
+    }
+
+    public LockMemory lockMemory(ExecutorService executorService) {
+        var lockMemoryFuture = executorService.submit(() ->
+                transactionTemplate.execute(status -> jdbcTemplate.queryForObject("""
+                        SELECT (SELECT COALESCE(SUM(pages_kb), 0)
+                                FROM sys.dm_os_memory_clerks
+                                WHERE type = 'OBJECTSTORE_LOCK_MANAGER')                  AS lock_manager_kb,
+                               (SELECT COALESCE(MAX(cntr_value), 0)
+                                FROM sys.dm_os_performance_counters
+                                WHERE object_name LIKE '%Memory Manager%'
+                                  AND RTRIM(counter_name) = 'Lock Memory (KB)')           AS lock_memory_kb,
+                               (SELECT CAST(value_in_use AS bigint)
+                                FROM sys.configurations
+                                WHERE name = 'locks')                                     AS locks_config,
+                               (SELECT committed_target_kb FROM sys.dm_os_sys_info)       AS committed_target_kb
+                        """, (rs, rowNum) -> new LockMemory(
+                        rs.getLong("lock_manager_kb") * 1024,
+                        rs.getLong("lock_memory_kb") * 1024,
+                        rs.getLong("locks_config"),
+                        rs.getLong("committed_target_kb") * 1024))));
+
+        try {
+            return lockMemoryFuture.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ExceptionUtils.rethrow(e);
+        } catch (ExecutionException | TimeoutException e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+
     public int currentSessionId() {
         return jdbcTemplate.queryForObject("SELECT @@spid", Number.class).intValue();
     }
@@ -176,7 +259,41 @@ public class DataProcessor {
         return String.format(LOCKS_SQL, "AND request_session_id = @@spid");
     }
 
+    private static String sessionLocksSql(int sessionId) {
+        return String.format(LOCKS_SQL, "AND request_session_id = " + sessionId);
+    }
+
     private static String allLocksSql() {
         return String.format(LOCKS_SQL, "");
     }
+
+    /**
+     * Cumulative lock waits (wait types {@code LCK_M_*}) of whole DB server since its start.
+     */
+    public record LockWaits(long waitingTasks, long waitTimeMs) {
+        public LockWaits minus(LockWaits other) {
+            return new LockWaits(waitingTasks - other.waitingTasks, waitTimeMs - other.waitTimeMs);
+        }
+    }
+
+    /**
+     * Cumulative lock escalation attempts and successful escalations of all partitions of the table.
+     */
+    public record LockPromotions(long attempts, long promotions) {
+        public LockPromotions minus(LockPromotions other) {
+            return new LockPromotions(attempts - other.attempts, promotions - other.promotions);
+        }
+    }
+
+    /**
+     * Lock manager memory ({@code OBJECTSTORE_LOCK_MANAGER} memory clerk and {@code Lock Memory (KB)} performance
+     * counter), {@code locks} server configuration value (0 = dynamic), and memory that DB server can commit.
+     */
+    public record LockMemory(
+            long lockManagerBytes,
+            long lockMemoryBytes,
+            long locksConfigValue,
+            long committedTargetBytes
+    ) {
+    }
 }
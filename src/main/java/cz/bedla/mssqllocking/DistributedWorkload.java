@@ -0,0 +1,389 @@
+package cz.bedla.mssqllocking;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs same workload from several local JVM processes ("nodes") to simulate contention of many application nodes.
+ * <p>
+ * Driver ({@code distributed.role=driver}) prepares data and for every node count starts node processes of this
+ * application with {@code distributed.role=node}. Nodes wait for each other on barrier stored in
+ * {@code foo.DISTRIBUTED_BARRIER}, run workload on shared key space of {@code foo.FOO_LOCK_TABLE_PK}, and store their
+ * results and latency histograms to {@code foo.DISTRIBUTED_NODE_RESULT} and {@code foo.DISTRIBUTED_LATENCY}. Driver
+ * merges results of all nodes and prints how throughput scales with added nodes.
+ */
+@Component
+@Profile("distributed-workload")
+class DistributedWorkload implements InitializingBean {
+    private static final String TABLE_NAME = "foo.FOO_LOCK_TABLE_PK";
+    private static final String PHASE_READY = "READY";
+    private static final String PHASE_DONE = "DONE";
+    private static final Duration LOCK_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration BARRIER_TIMEOUT = Duration.ofMinutes(2);
+
+    private final DataProcessor dataProcessor;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RetryingTransactionExecutor retryingTransactionExecutor;
+    private final String role;
+    private final List<Integer> nodeCounts;
+    private final int threadsPerNode;
+    private final int durationSeconds;
+    private final int hotRows;
+    private final String runId;
+    private final int nodeId;
+    private final int nodeCount;
+
+    DistributedWorkload(
+            DataProcessor dataProcessor,
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            RetryingTransactionExecutor retryingTransactionExecutor,
+            @Value("${distributed.role}") String role,
+            @Value("${distributed.node-counts}") List<Integer> nodeCounts,
+            @Value("${distributed.threads-per-node}") int threadsPerNode,
+            @Value("${distributed.duration-seconds}") int durationSeconds,
+            @Value("${distributed.hot-rows}") int hotRows,
+            @Value("${distributed.run-id:}") String runId,
+            @Value("${distributed.node-id:0}") int nodeId,
+            @Value("${distributed.node-count:1}") int nodeCount
+    ) {
+        this.dataProcessor = dataProcessor;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.retryingTransactionExecutor = retryingTransactionExecutor;
+        this.role = role;
+        this.nodeCounts = nodeCounts;
+        this.threadsPerNode = threadsPerNode;
+        this.durationSeconds = durationSeconds;
+        this.hotRows = hotRows;
+        this.runId = runId;
+        this.nodeId = nodeId;
+        this.nodeCount = nodeCount;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        switch (role) {
+            case "driver" -> drive();
+            case "node" -> runNode();
+            default -> throw new IllegalStateException("Unknown distributed.role=" + role + ", expected driver or node");
+        }
+    }
+
+    private void drive() throws InterruptedException {
+        var results = new ArrayList<RunResult>();
+        for (int currentNodeCount : nodeCounts) {
+            var currentRunId = UUID.randomUUID().toString();
+            dataProcessor.truncateTable(TABLE_NAME);
+            dataProcessor.insertRecordsFooLockTable(hotRows, TABLE_NAME);
+            log("run " + currentRunId + " nodes=" + currentNodeCount + " threadsPerNode=" + threadsPerNode);
+
+            var processes = new ArrayList<Process>();
+            try {
+                for (int currentNodeId = 1; currentNodeId <= currentNodeCount; currentNodeId++) {
+                    processes.add(startNode(currentRunId, currentNodeId, currentNodeCount));
+                }
+                awaitNodes(processes);
+
+                var result = mergeResults(currentRunId, currentNodeCount);
+                log(result.toString());
+                results.add(result);
+            } finally {
+                processes.forEach(Process::destroyForcibly);
+                deleteRun(currentRunId);
+            }
+            log("=========================================================");
+        }
+
+        var baseline = results.get(0).operationsPerSecond() / results.get(0).nodes();
+        for (RunResult result : results) {
+            var efficiency = (result.operationsPerSecond() / result.nodes()) / baseline;
+            log(result + " scalingEfficiency=" + efficiency);
+        }
+    }
+
+    private void awaitNodes(List<Process> processes) throws InterruptedException {
+        // one deadline for all nodes, they run in parallel
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds + BARRIER_TIMEOUT.toSeconds() * 2);
+        while (processes.stream().anyMatch(Process::isAlive)) {
+            // failed node would keep other nodes waiting on barrier
+            failOnNodeError(processes);
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Node processes did not finish in time");
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        failOnNodeError(processes);
+    }
+
+    private static void failOnNodeError(List<Process> processes) {
+        for (Process process : processes) {
+            if (!process.isAlive() && process.exitValue() != 0) {
+                throw new IllegalStateException("Node process " + process.pid() + " failed with exit code " + process.exitValue());
+            }
+        }
+    }
+
+    private Process startNode(String currentRunId, int currentNodeId, int currentNodeCount) {
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Dspring.profiles.active=distributed-workload");
+        command.add("-Ddistributed.role=node");
+        command.add("-Ddistributed.run-id=" + currentRunId);
+        command.add("-Ddistributed.node-id=" + currentNodeId);
+        command.add("-Ddistributed.node-count=" + currentNodeCount);
+        command.add("-Ddistributed.threads-per-node=" + threadsPerNode);
+        command.add("-Ddistributed.duration-seconds=" + durationSeconds);
+        command.add("-Ddistributed.hot-rows=" + hotRows);
+        // environment variables are inherited by child process, system properties have to be forwarded
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.equals("dbName") || key.startsWith("spring.datasource.")) {
+                command.add("-D" + key + "=" + System.getProperty(key));
+            }
+        }
+        var classPath = System.getProperty("java.class.path");
+        if (classPath.endsWith(".jar") && !classPath.contains(File.pathSeparator)) {
+            // executable Spring Boot jar
+            command.add("-jar");
+            command.add(classPath);
+        } else {
+            command.add("-cp");
+            command.add(classPath);
+            command.add(MssqlLockingApplication.class.getName());
+        }
+
+        try {
+            return new ProcessBuilder(command).inheritIO().start();
+        } catch (Exception e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private void runNode() {
+        var name = "Node-" + nodeId;
+        var executorService = Executors.newFixedThreadPool(threadsPerNode);
+
+        NodeResult total;
+        long elapsedNanos;
+        try {
+            arriveAndAwait(PHASE_READY);
+            log(name + " start");
+
+            var start = System.nanoTime();
+            var deadline = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+            var futures = new ArrayList<Future<NodeResult>>();
+            for (int i = 0; i < threadsPerNode; i++) {
+                futures.add(executorService.submit(() -> runWorkload(deadline)));
+            }
+            total = futures.stream()
+                    .map(DistributedWorkload::get)
+                    .reduce(new NodeResult(0, 0, new LatencyHistogram()), NodeResult::plus);
+            // in-flight transactions finish after deadline, with retries it can be much longer than configured duration
+            elapsedNanos = System.nanoTime() - start;
+        } finally {
+            executorService.shutdown();
+        }
+
+        var attempts = retryingTransactionExecutor.metrics().stream()
+                .mapToLong(RetryingTransactionExecutor.TransactionMetrics::attempts)
+                .sum();
+        log(name + " operations=" + total.operations + " failures=" + total.failures + " " + total.latencies);
+        retryingTransactionExecutor.printMetrics();
+        storeResult(total, attempts, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+
+        arriveAndAwait(PHASE_DONE);
+        log(name + " end");
+    }
+
+    private NodeResult runWorkload(long deadline) {
+        var operations = 0L;
+        var failures = 0L;
+        var latencies = new LatencyHistogram();
+        while (System.nanoTime() < deadline) {
+            var random = ThreadLocalRandom.current();
+            var firstId = random.nextInt(1, hotRows + 1);
+            var secondId = random.nextInt(1, hotRows + 1);
+            var start = System.nanoTime();
+            try {
+                // two rows in random order => deadlocks are possible, as in real application
+                retryingTransactionExecutor.executeWithoutResult("distributed-update", LOCK_TIMEOUT, status -> {
+                    updateRow(firstId);
+                    updateRow(secondId);
+                });
+                latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                operations++;
+            } catch (RuntimeException e) {
+                // lock related errors that were not retried (attempts or retry budget exhausted) are expected
+                if (RetryingTransactionExecutor.classify(e) == RetryingTransactionExecutor.SqlServerError.NON_RETRYABLE) {
+                    log("Node-" + nodeId + " failed: " + e);
+                    throw e;
+                }
+                failures++;
+            }
+        }
+        return new NodeResult(operations, failures, latencies);
+    }
+
+    private void updateRow(int id) {
+        jdbcTemplate.update("""
+                UPDATE <<tableName>>
+                SET STATUS = ?,
+                    EXECUTION_END = GETDATE()
+                WHERE ID = ?""".replace("<<tableName>>", TABLE_NAME), "N" + nodeId, id);
+    }
+
+    private void arriveAndAwait(String phase) {
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.update("""
+                INSERT INTO foo.DISTRIBUTED_BARRIER(RUN_ID, PHASE, NODE_ID)
+                VALUES (?, ?, ?)""", runId, phase, nodeId));
+
+        var deadline = System.nanoTime() + BARRIER_TIMEOUT.toNanos();
+        while (arrivedNodes(phase) < nodeCount) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Node-" + nodeId + " not all nodes arrived to " + phase + " in " + BARRIER_TIMEOUT);
+            }
+            sleep(10);
+        }
+    }
+
+    private int arrivedNodes(String phase) {
+        return jdbcTemplate.queryForObject("""
+                SELECT COUNT(*)
+                FROM foo.DISTRIBUTED_BARRIER
+                WHERE RUN_ID = ?
+                  AND PHASE = ?""", Number.class, runId, phase).intValue();
+    }
+
+    private void storeResult(NodeResult result, long attempts, long elapsedMillis) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("""
+                            INSERT INTO foo.DISTRIBUTED_NODE_RESULT(RUN_ID, NODE_ID, OPERATIONS, FAILURES, ATTEMPTS, ELAPSED_MS)
+                            VALUES (?, ?, ?, ?, ?, ?)""",
+                    runId, nodeId, result.operations, result.failures, attempts, elapsedMillis);
+            jdbcTemplate.batchUpdate("""
+                            INSERT INTO foo.DISTRIBUTED_LATENCY(RUN_ID, NODE_ID, BUCKET, BUCKET_COUNT)
+                            VALUES (?, ?, ?, ?)""",
+                    result.latencies.buckets().entrySet().stream()
+                            .map(it -> new Object[]{runId, nodeId, it.getKey(), it.getValue()})
+                            .toList());
+        });
+    }
+
+    private RunResult mergeResults(String currentRunId, int currentNodeCount) {
+        var latencies = new LatencyHistogram();
+        jdbcTemplate.query("""
+                        SELECT BUCKET, BUCKET_COUNT
+                        FROM foo.DISTRIBUTED_LATENCY
+                        WHERE RUN_ID = ?""",
+                (RowCallbackHandler) rs -> latencies.add(rs.getInt("BUCKET"), rs.getLong("BUCKET_COUNT")),
+                currentRunId);
+
+        var nodeResults = jdbcTemplate.queryForList("""
+                SELECT NODE_ID, OPERATIONS, FAILURES, ATTEMPTS, ELAPSED_MS
+                FROM foo.DISTRIBUTED_NODE_RESULT
+                WHERE RUN_ID = ?
+                ORDER BY NODE_ID""", currentRunId);
+        if (nodeResults.size() != currentNodeCount) {
+            throw new IllegalStateException("Expected results of " + currentNodeCount + " nodes, found " + nodeResults.size());
+        }
+
+        var operations = 0L;
+        var failures = 0L;
+        var attempts = 0L;
+        var operationsPerSecond = 0.0;
+        for (var nodeResult : nodeResults) {
+            log("node " + nodeResult);
+            var nodeOperations = ((Number) nodeResult.get("OPERATIONS")).longValue();
+            operations += nodeOperations;
+            failures += ((Number) nodeResult.get("FAILURES")).longValue();
+            attempts += ((Number) nodeResult.get("ATTEMPTS")).longValue();
+            operationsPerSecond += nodeOperations * 1000.0 / ((Number) nodeResult.get("ELAPSED_MS")).longValue();
+        }
+
+        return new RunResult(
+                currentNodeCount,
+                threadsPerNode,
+                operations,
+                failures,
+                operations == 0 ? 0 : (double) attempts / operations,
+                operationsPerSecond,
+                latencies.percentile(50),
+                latencies.percentile(99),
+                latencies.max());
+    }
+
+    private void deleteRun(String currentRunId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM foo.DISTRIBUTED_LATENCY WHERE RUN_ID = ?", currentRunId);
+            jdbcTemplate.update("DELETE FROM foo.DISTRIBUTED_NODE_RESULT WHERE RUN_ID = ?", currentRunId);
+            jdbcTemplate.update("DELETE FROM foo.DISTRIBUTED_BARRIER WHERE RUN_ID = ?", currentRunId);
+        });
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get(10, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ExceptionUtils.rethrow(e);
+        } catch (Exception e) {
+            return ExceptionUtils.rethrow(e instanceof ExecutionException ? e.getCause() : e);
+        }
+    }
+
+    private static void sleep(int millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private static void log(String msg) {
+        System.out.println(LocalDateTime.now() + " [" + Thread.currentThread().getName() + "]> " + msg);
+    }
+
+    record NodeResult(long operations, long failures, LatencyHistogram latencies) {
+        NodeResult plus(NodeResult other) {
+            var merged = new LatencyHistogram();
+            merged.merge(latencies);
+            merged.merge(other.latencies);
+            return new NodeResult(operations + other.operations, failures + other.failures, merged);
+        }
+    }
+
+    record RunResult(
+            int nodes,
+            int threadsPerNode,
+            long operations,
+            long failures,
+            double attemptsPerOperation,
+            double operationsPerSecond,
+            long p50Micros,
+            long p99Micros,
+            long maxMicros
+    ) {
+    }
+}
@@ -6,16 +6,30 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 @Component
 @Profile("find-lock-escalation-threshold")
 class FindLockEscalationThreshold implements InitializingBean {
+    private static final String TABLE_NAME = "foo.FOO_LOCK_TABLE_NO_PK";
+    // https://learn.microsoft.com/en-us/sql/database-engine/configure-windows/configure-the-locks-server-configuration-option
+    private static final int LOCK_COUNT_THRESHOLD = 5_000;
+    // when escalation fails because of conflicting locks, it is retried every 1250 new locks
+    private static final int LOCK_COUNT_RETRY_STEP = 1_250;
+    // row locks are counted, but count rule includes also page locks of the statement
+    private static final int LOCK_COUNT_TOLERANCE = 100;
+    private static final double DYNAMIC_LOCK_MEMORY_RATIO = 0.24;
+    private static final double CONFIGURED_LOCKS_RATIO = 0.40;
+
     private final DataProcessor dataProcessor;
     private final JdbcTemplate jdbcTemplate;
     private final TransactionTemplate transactionTemplate;
     private final ExecutorService executorService;
+    private final Map<Integer, Locks> samples = new TreeMap<>();
 
     FindLockEscalationThreshold(
             DataProcessor dataProcessor,
@@ -33,10 +47,109 @@ class FindLockEscalationThreshold implements InitializingBean {
         var count = 10_000;
 //        var count = 5_000;
 
-        dataProcessor.truncateTable("foo.FOO_LOCK_TABLE_NO_PK");
-        dataProcessor.insertRecordsFooLockTable(count, "foo.FOO_LOCK_TABLE_NO_PK");
+        dataProcessor.truncateTable(TABLE_NAME);
+        dataProcessor.insertRecordsFooLockTable(count, TABLE_NAME);
+
+        var threshold = findLockEscalationThreshold(count);
+        System.out.println("lock escalation threshold = " + threshold);
+        printLockMemoryReport(threshold);
+    }
+
+    private void printLockMemoryReport(int threshold) {
+        System.out.println("lock memory per UPDATE-ed row count:");
+        for (Map.Entry<Integer, Locks> entry : samples.entrySet()) {
+            var locks = entry.getValue();
+            System.out.println(entry.getKey() + " => " + locks
+                    + ", lockMemoryDelta=" + lockMemoryDelta(locks)
+                    + " B, lockManagerClerkDelta=" + (locks.after.lockManagerBytes() - locks.before.lockManagerBytes())
+                    + " B, bytesPerRowLock=" + bytesPerRowLock(locks));
+        }
+
+        // biggest UPDATE that did not escalate holds the most row locks => the most precise bytes per lock
+        var lastRowLocked = samples.values().stream()
+                .filter(it -> it.tableLockCount == 0 && it.rowLockCount > 0)
+                .max(Comparator.comparingInt(Locks::rowLockCount))
+                .orElseThrow(() -> new IllegalStateException("No sample without lock escalation"));
+        var bytesPerRowLock = bytesPerRowLock(lastRowLocked);
+        var lockMemory = lastRowLocked.before;
+        var memoryAtThreshold = (long) (lockMemory.lockMemoryBytes() + threshold * bytesPerRowLock);
+
+        long memoryLimitBytes;
+        if (lockMemory.locksConfigValue() == 0) {
+            // dynamic lock memory => escalation when locks use 24 % of memory of DB engine
+            memoryLimitBytes = (long) (lockMemory.committedTargetBytes() * DYNAMIC_LOCK_MEMORY_RATIO);
+        } else {
+            // configured locks => escalation when 40 % of configured locks is used
+            memoryLimitBytes = (long) (lockMemory.locksConfigValue() * CONFIGURED_LOCKS_RATIO * bytesPerRowLock);
+        }
+        var memoryRule = bytesPerRowLock > 0 && memoryAtThreshold >= memoryLimitBytes;
+        // smallest UPDATE that escalated is the one at found threshold
+        var firstEscalated = samples.values().stream()
+                .filter(it -> it.tableLockCount > 0)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No sample with lock escalation"));
+        var promotions = firstEscalated.promotions;
+        var failedAttempts = promotions.attempts() - promotions.promotions();
+        var countRule = promotions.promotions() > 0 && matchesLockCountRule(threshold, failedAttempts);
+
+        String trigger;
+        if (memoryRule && countRule) {
+            trigger = "LOCK_COUNT and MEMORY";
+        } else if (memoryRule) {
+            trigger = "MEMORY";
+        } else if (countRule) {
+            trigger = "LOCK_COUNT";
+        } else {
+            trigger = "UNDETERMINED";
+        }
 
-        System.out.println("lock escalation threshold = " + findLockEscalationThreshold(count));
+        System.out.println("bytes per row lock = " + bytesPerRowLock + " (from Lock Memory (KB) counter of "
+                + lastRowLocked.rowLockCount + " row locks)");
+        System.out.println("locks config value = " + lockMemory.locksConfigValue()
+                + ", committed target memory = " + lockMemory.committedTargetBytes() + " B");
+        System.out.println("lock memory at threshold = " + memoryAtThreshold + " B, lock memory limit = " + memoryLimitBytes + " B");
+        System.out.println("lock escalation at threshold: attempts = " + promotions.attempts()
+                + ", promotions = " + promotions.promotions() + ", failed attempts = " + failedAttempts);
+        System.out.println("lock count rule = " + LOCK_COUNT_THRESHOLD + " locks"
+                + (failedAttempts > 0 ? ", then every " + LOCK_COUNT_RETRY_STEP + " locks" : "")
+                + ", threshold " + threshold + (countRule ? " matches" : " does not match"));
+        System.out.println("escalation triggered by " + trigger);
+        if (lockMemory.locksConfigValue() == 0 && bytesPerRowLock > 0) {
+            System.out.println("lock count that would trigger escalation by memory = "
+                    + (long) ((memoryLimitBytes - lockMemory.lockMemoryBytes()) / bytesPerRowLock));
+            System.out.println("committed memory needed to keep " + threshold + " row locks under memory limit = "
+                    + (long) (memoryAtThreshold / DYNAMIC_LOCK_MEMORY_RATIO) + " B");
+        }
+    }
+
+    /**
+     * Escalation is retried every {@link #LOCK_COUNT_RETRY_STEP} locks only after attempt failed because of conflicting
+     * locks, so without failed attempts threshold has to be {@link #LOCK_COUNT_THRESHOLD}.
+     */
+    private static boolean matchesLockCountRule(int threshold, long failedAttempts) {
+        if (failedAttempts == 0) {
+            return Math.abs(threshold - LOCK_COUNT_THRESHOLD) <= LOCK_COUNT_TOLERANCE;
+        }
+        if (threshold < LOCK_COUNT_THRESHOLD + LOCK_COUNT_RETRY_STEP - LOCK_COUNT_TOLERANCE) {
+            return false;
+        }
+        var overThreshold = Math.max(0, threshold - LOCK_COUNT_THRESHOLD) % LOCK_COUNT_RETRY_STEP;
+        return overThreshold <= LOCK_COUNT_TOLERANCE || LOCK_COUNT_RETRY_STEP - overThreshold <= LOCK_COUNT_TOLERANCE;
+    }
+
+    /**
+     * {@code OBJECTSTORE_LOCK_MANAGER} clerk keeps freed lock blocks after commit, so its delta is zero once bigger
+     * UPDATE was probed before. {@code Lock Memory (KB)} counter is used instead.
+     */
+    private static long lockMemoryDelta(Locks locks) {
+        return locks.after.lockMemoryBytes() - locks.before.lockMemoryBytes();
+    }
+
+    private static double bytesPerRowLock(Locks locks) {
+        if (locks.rowLockCount == 0 || locks.tableLockCount > 0) {
+            return 0;
+        }
+        return (double) lockMemoryDelta(locks) / locks.rowLockCount;
     }
 
     private int findLockEscalationThreshold(int count) {
@@ -97,17 +210,29 @@ class FindLockEscalationThreshold implements InitializingBean {
 
     private Locks findLocksCount(int index) {
         return transactionTemplate.execute(status -> {
+            var lockMemoryBefore = dataProcessor.lockMemory(executorService);
+            var lockPromotionsBefore = dataProcessor.lockPromotions(TABLE_NAME);
             jdbcTemplate.update("""
-                    UPDATE foo.FOO_LOCK_TABLE_NO_PK
+                    UPDATE <<tableName>>
                     SET STATUS = ?
-                    WHERE ID <= ?""", "XXX", index);
+                    WHERE ID <= ?""".replace("<<tableName>>", TABLE_NAME), "XXX", index);
+            var lockPromotions = dataProcessor.lockPromotions(TABLE_NAME).minus(lockPromotionsBefore);
             var rowLockCount = dataProcessor.rowLockCountAllSessions(executorService);
             var tableLockCount = dataProcessor.tableLockCountAllSessions(executorService);
-            return new Locks(rowLockCount, tableLockCount);
+            var lockMemoryAfter = dataProcessor.lockMemory(executorService);
+            var locks = new Locks(rowLockCount, tableLockCount, lockPromotions, lockMemoryBefore, lockMemoryAfter);
+            samples.put(index, locks);
+            return locks;
         });
     }
 
-    record Locks(int rowLockCount, int tableLockCount) {
+    record Locks(
+            int rowLockCount,
+            int tableLockCount,
+            DataProcessor.LockPromotions promotions,
+            DataProcessor.LockMemory before,
+            DataProcessor.LockMemory after
+    ) {
     }
 
     record Range(int leftId, int rightId) {
@@ -0,0 +1,339 @@
+package cz.bedla.mssqllocking;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StopWatch;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Worker pool that uses {@code FOO_JOB_QUEUE} as job queue.
+ * <p>
+ * Workers claim batches of {@code NEW} jobs with {@code UPDATE TOP(n) ... WITH (UPDLOCK, READPAST, ROWLOCK)}, so they
+ * skip rows locked by other workers instead of waiting for them. Batch size of every worker adapts to claim latency
+ * and is capped below lock escalation threshold, the cap is lowered when claims trigger lock escalation attempts anyway.
+ * Processed jobs are marked {@code DONE} by completer threads in batches, so workers do not wait for it.
+ */
+@Component
+@Profile("job-claiming-worker-pool")
+class JobClaimingWorkerPool implements InitializingBean {
+    private static final String TABLE_NAME = "foo.FOO_JOB_QUEUE";
+    private static final int JOB_COUNT = 20_000;
+    private static final int[] WORKER_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int JOB_WORK_MICROS = 500;
+    // MSSQL tries to escalate when single statement acquires 5000 locks
+    private static final int LOCK_ESCALATION_THRESHOLD = 5_000;
+    // claimed row X-locks key of clustered index, and old (NEW, ID) and new (RUNNING, ID) key of IX_FOO_JOB_QUEUE_STATUS_ID
+    private static final int LOCKS_PER_CLAIMED_ROW = 3;
+    private static final int LOCK_ESCALATION_MARGIN = 250;
+    private static final int MIN_BATCH_SIZE = 1;
+    private static final int INITIAL_BATCH_SIZE = 10;
+    private static final int MAX_BATCH_SIZE = LOCK_ESCALATION_THRESHOLD / LOCKS_PER_CLAIMED_ROW - LOCK_ESCALATION_MARGIN;
+    // smaller claims are far below the threshold, checking escalations after them would only slow workers down
+    private static final int ESCALATION_CHECK_BATCH_SIZE = 250;
+    private static final long TARGET_CLAIM_MILLIS = 50;
+    private static final int EMPTY_CLAIM_BACKOFF_MICROS = 5_000;
+    private static final int COMPLETERS = 2;
+    private static final int COMPLETION_BATCH_SIZE = 1_000;
+    private static final Duration LOCK_TIMEOUT = Duration.ofSeconds(5);
+
+    private final DataProcessor dataProcessor;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RetryingTransactionExecutor retryingTransactionExecutor;
+    private final ExecutorService workersExecutorService;
+    private final ExecutorService completersExecutorService;
+
+    JobClaimingWorkerPool(
+            DataProcessor dataProcessor,
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            RetryingTransactionExecutor retryingTransactionExecutor
+    ) {
+        this.dataProcessor = dataProcessor;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.retryingTransactionExecutor = retryingTransactionExecutor;
+        this.workersExecutorService = Executors.newFixedThreadPool(WORKER_COUNTS[WORKER_COUNTS.length - 1]);
+        this.completersExecutorService = Executors.newFixedThreadPool(COMPLETERS);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        var results = new ArrayList<Result>();
+        for (int workers : WORKER_COUNTS) {
+            results.add(run(workers));
+            log("=========================================================");
+        }
+
+        var baseline = results.get(0).jobsPerSecond();
+        for (Result result : results) {
+            log(result + " speedup=" + (result.jobsPerSecond() / baseline));
+        }
+
+        workersExecutorService.shutdown();
+        completersExecutorService.shutdown();
+    }
+
+    private Result run(int workers) {
+        dataProcessor.truncateTable(TABLE_NAME);
+        dataProcessor.insertRecordsFooLockTable(JOB_COUNT, TABLE_NAME, "NEW");
+        log("workers=" + workers + " jobs=" + JOB_COUNT);
+
+        retryingTransactionExecutor.resetMetrics();
+        var lockWaitsBefore = dataProcessor.lockWaits();
+        var lockPromotionsBefore = dataProcessor.lockPromotions(TABLE_NAME);
+
+        var completionQueue = new LinkedBlockingQueue<Integer>();
+        var workersRunning = new AtomicBoolean(true);
+        var completers = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < COMPLETERS; i++) {
+            completers.add(completersExecutorService.submit(() -> completeJobs(completionQueue, workersRunning)));
+        }
+
+        var escalationGuard = new EscalationGuard(lockPromotionsBefore.attempts());
+        var latchStart = new CountDownLatch(1);
+        var futures = new ArrayList<Future<WorkerResult>>();
+        for (int i = 0; i < workers; i++) {
+            futures.add(workersExecutorService.submit(() -> {
+                await(latchStart);
+                return processJobs(completionQueue, escalationGuard);
+            }));
+        }
+
+        var stopWatch = new StopWatch();
+        stopWatch.start();
+        latchStart.countDown();
+        var total = futures.stream()
+                .map(JobClaimingWorkerPool::get)
+                .reduce(new WorkerResult(0, 0, 0, 0), WorkerResult::plus);
+        workersRunning.set(false);
+        var completed = completers.stream()
+                .mapToInt(JobClaimingWorkerPool::get)
+                .sum();
+        stopWatch.stop();
+        retryingTransactionExecutor.printMetrics();
+
+        return new Result(
+                workers,
+                total.jobs,
+                completed,
+                notDoneJobs(),
+                stopWatch.getTotalTimeSeconds(),
+                total.jobs / stopWatch.getTotalTimeSeconds(),
+                total.claims,
+                total.emptyClaims,
+                total.claims == 0 ? 0 : (double) total.jobs / total.claims,
+                total.maxBatchSize,
+                escalationGuard.maxBatchSize(),
+                dataProcessor.lockWaits().minus(lockWaitsBefore),
+                dataProcessor.lockPromotions(TABLE_NAME).minus(lockPromotionsBefore));
+    }
+
+    private WorkerResult processJobs(BlockingQueue<Integer> completionQueue, EscalationGuard escalationGuard) {
+        var batchSizer = new BatchSizer();
+        var jobs = 0;
+        var claims = 0;
+        var emptyClaims = 0;
+        var maxBatchSize = 0;
+        while (true) {
+            var batchSize = batchSizer.size(escalationGuard.maxBatchSize());
+            var stopWatch = new StopWatch();
+            stopWatch.start();
+            var ids = claimJobs(batchSize);
+            stopWatch.stop();
+            batchSizer.adjust(ids.size(), stopWatch.getTotalTimeMillis(), escalationGuard.maxBatchSize());
+            if (ids.size() >= ESCALATION_CHECK_BATCH_SIZE) {
+                escalationGuard.check(ids.size());
+            }
+
+            claims++;
+            if (ids.isEmpty()) {
+                emptyClaims++;
+                // READPAST skips jobs locked by others, so empty batch does not have to mean that queue is empty
+                if (newJobs() == 0) {
+                    return new WorkerResult(jobs, claims, emptyClaims, maxBatchSize);
+                }
+                // remaining jobs are being claimed by other workers, do not hammer the table meanwhile
+                sleepMicros(EMPTY_CLAIM_BACKOFF_MICROS);
+                continue;
+            }
+
+            maxBatchSize = Math.max(maxBatchSize, ids.size());
+            jobs += ids.size();
+            sleepMicros((long) JOB_WORK_MICROS * ids.size());
+            completionQueue.addAll(ids);
+        }
+    }
+
+    private List<Integer> claimJobs(int batchSize) {
+        return retryingTransactionExecutor.execute("claim-jobs", LOCK_TIMEOUT, status -> jdbcTemplate.queryForList("""
+                UPDATE TOP (?) <<tableName>> WITH (UPDLOCK, READPAST, ROWLOCK)
+                SET STATUS = 'RUNNING',
+                    EXECUTION_START = GETDATE(),
+                    EXECUTION_END = NULL
+                OUTPUT inserted.ID
+                WHERE STATUS = 'NEW'""".replace("<<tableName>>", TABLE_NAME), Integer.class, batchSize));
+    }
+
+    /**
+     * @return count of jobs marked as {@code DONE}
+     */
+    private int completeJobs(BlockingQueue<Integer> completionQueue, AtomicBoolean workersRunning) throws InterruptedException {
+        var completed = 0;
+        while (workersRunning.get() || !completionQueue.isEmpty()) {
+            var first = completionQueue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                continue;
+            }
+            var ids = new ArrayList<Integer>();
+            ids.add(first);
+            completionQueue.drainTo(ids, COMPLETION_BATCH_SIZE - 1);
+
+            retryingTransactionExecutor.executeWithoutResult("complete-jobs", LOCK_TIMEOUT, status -> jdbcTemplate.batchUpdate("""
+                            UPDATE <<tableName>>
+                            SET STATUS = 'DONE',
+                                EXECUTION_END = GETDATE()
+                            WHERE ID = ?""".replace("<<tableName>>", TABLE_NAME),
+                    ids.stream().map(id -> new Object[]{id}).toList()));
+            completed += ids.size();
+        }
+        return completed;
+    }
+
+    private int newJobs() {
+        return jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + TABLE_NAME + " WHERE STATUS = 'NEW'", Number.class).intValue();
+    }
+
+    private int notDoneJobs() {
+        return jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + TABLE_NAME + " WHERE STATUS <> 'DONE'", Number.class).intValue();
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get(10, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ExceptionUtils.rethrow(e);
+        } catch (Exception e) {
+            return ExceptionUtils.rethrow(e instanceof ExecutionException ? e.getCause() : e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(1, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Waiting time elapsed before the count reached zero");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private static void sleepMicros(long micros) {
+        try {
+            TimeUnit.MICROSECONDS.sleep(micros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private static void log(String msg) {
+        System.out.println(LocalDateTime.now() + " [" + Thread.currentThread().getName() + "]> " + msg);
+    }
+
+    /**
+     * Lowers batch size limit of all workers when claims trigger lock escalation attempts despite
+     * {@link #MAX_BATCH_SIZE} (e.g. when claim takes more locks per row than expected), because escalated table lock
+     * would block all other workers and completers.
+     */
+    private final class EscalationGuard {
+        private int maxBatchSize = MAX_BATCH_SIZE;
+        private long seenAttempts;
+
+        EscalationGuard(long attempts) {
+            this.seenAttempts = attempts;
+        }
+
+        synchronized int maxBatchSize() {
+            return maxBatchSize;
+        }
+
+        synchronized void check(int claimed) {
+            var attempts = dataProcessor.lockPromotions(TABLE_NAME).attempts();
+            if (attempts > seenAttempts) {
+                seenAttempts = attempts;
+                maxBatchSize = Math.max(MIN_BATCH_SIZE, Math.min(maxBatchSize, claimed) / 2);
+                log("Lock escalation attempted after claim of " + claimed + " jobs, max batch size lowered to " + maxBatchSize);
+            }
+        }
+    }
+
+    /**
+     * Doubles batch size while whole batches are claimed fast enough and halves it when claim is slow. Batch size
+     * never exceeds given limit, so claim does not trigger lock escalation to table lock.
+     */
+    static final class BatchSizer {
+        private int size = INITIAL_BATCH_SIZE;
+
+        int size(int maxBatchSize) {
+            size = Math.min(size, maxBatchSize);
+            return size;
+        }
+
+        void adjust(int claimed, long claimMillis, int maxBatchSize) {
+            if (claimMillis > TARGET_CLAIM_MILLIS) {
+                size = Math.max(MIN_BATCH_SIZE, size / 2);
+            } else if (claimed == size) {
+                size = Math.min(maxBatchSize, size * 2);
+            }
+        }
+    }
+
+    record WorkerResult(int jobs, int claims, int emptyClaims, int maxBatchSize) {
+        WorkerResult plus(WorkerResult other) {
+            return new WorkerResult(
+                    jobs + other.jobs,
+                    claims + other.claims,
+                    emptyClaims + other.emptyClaims,
+                    Math.max(maxBatchSize, other.maxBatchSize));
+        }
+    }
+
+    record Result(
+            int workers,
+            int jobs,
+            int completedJobs,
+            int notDoneJobs,
+            double totalSeconds,
+            double jobsPerSecond,
+            int claims,
+            int emptyClaims,
+            double averageBatchSize,
+            int maxBatchSize,
+            int batchSizeLimit,
+            DataProcessor.LockWaits lockWaits,
+            DataProcessor.LockPromotions lockPromotions
+    ) {
+    }
+}
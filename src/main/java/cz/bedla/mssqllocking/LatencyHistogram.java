@@ -0,0 +1,104 @@
+package cz.bedla.mssqllocking;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Log-linear histogram of latencies in microseconds. Every power of 2 is split to 16 buckets, so value of every bucket
+ * is at most ~6 % off. Histograms of several processes are merged by adding counts of same buckets.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long totalCount;
+
+    void record(long micros) {
+        add(bucket(Math.max(0, micros)), 1);
+    }
+
+    void add(int bucket, long count) {
+        counts[bucket] += count;
+        totalCount += count;
+    }
+
+    void merge(LatencyHistogram other) {
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            if (other.counts[bucket] > 0) {
+                add(bucket, other.counts[bucket]);
+            }
+        }
+    }
+
+    long count() {
+        return totalCount;
+    }
+
+    /**
+     * @return upper bound of the bucket that contains given percentile (0 - 100)
+     */
+    long percentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        var rank = (long) Math.ceil(totalCount * percentile / 100.0);
+        var seen = 0L;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= Math.max(1, rank)) {
+                return upperBound(bucket);
+            }
+        }
+        return max();
+    }
+
+    long max() {
+        for (int bucket = counts.length - 1; bucket >= 0; bucket--) {
+            if (counts[bucket] > 0) {
+                return upperBound(bucket);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return non-empty buckets with their counts
+     */
+    Map<Integer, Long> buckets() {
+        var buckets = new LinkedHashMap<Integer, Long>();
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            if (counts[bucket] > 0) {
+                buckets.put(bucket, counts[bucket]);
+            }
+        }
+        return buckets;
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        var shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        var subBucket = (int) (value >> shift);
+        return (shift + 1) * SUB_BUCKETS + (subBucket - SUB_BUCKETS);
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        var shift = bucket / SUB_BUCKETS - 1;
+        var subBucket = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count=" + totalCount
+                + ", p50=" + percentile(50) + " us"
+                + ", p90=" + percentile(90) + " us"
+                + ", p99=" + percentile(99) + " us"
+                + ", max=" + max() + " us]";
+    }
+}
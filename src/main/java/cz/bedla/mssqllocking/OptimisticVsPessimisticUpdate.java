@@ -0,0 +1,276 @@
+package cz.bedla.mssqllocking;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StopWatch;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compares read-modify-write of a counter stored in {@code STATUS} column done
+ * <ul>
+ *     <li>pessimistically - {@code SELECT ... WITH (UPDLOCK)} and {@code UPDATE} in one transaction holding {@code U}/{@code X} lock</li>
+ *     <li>optimistically - lock-free read of {@code STATUS} and {@code RV} (rowversion) and then compare-and-set
+ *     {@code UPDATE ... WHERE ID = ? AND RV = ?} retried when somebody else updated the row in between</li>
+ * </ul>
+ * Contention rises with number of workers updating same small set of rows.
+ */
+@Component
+@Profile("optimistic-vs-pessimistic-update")
+class OptimisticVsPessimisticUpdate implements InitializingBean {
+    private static final String TABLE_NAME = "foo.FOO_LOCK_TABLE_PK";
+    private static final int HOT_ROWS = 10;
+    private static final int[] WORKER_COUNTS = {1, 2, 4, 8, 16};
+    private static final int OPERATIONS_PER_WORKER = 50;
+    private static final int THINK_MILLIS = 5;
+    private static final int MAX_RETRIES = 100;
+    private static final Duration LOCK_TIMEOUT = Duration.ofSeconds(5);
+
+    private final DataProcessor dataProcessor;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RetryingTransactionExecutor retryingTransactionExecutor;
+    private final ExecutorService workersExecutorService;
+    private final ExecutorService executorService;
+
+    OptimisticVsPessimisticUpdate(
+            DataProcessor dataProcessor,
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            RetryingTransactionExecutor retryingTransactionExecutor
+    ) {
+        this.dataProcessor = dataProcessor;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.retryingTransactionExecutor = retryingTransactionExecutor;
+        this.workersExecutorService = Executors.newFixedThreadPool(WORKER_COUNTS[WORKER_COUNTS.length - 1]);
+        this.executorService = Executors.newFixedThreadPool(2);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        var results = new ArrayList<Result>();
+        for (int workers : WORKER_COUNTS) {
+            for (Mode mode : Mode.values()) {
+                results.add(run(mode, workers));
+                log("=========================================================");
+            }
+        }
+
+        for (Result result : results) {
+            log(result.toString());
+        }
+
+        workersExecutorService.shutdown();
+        executorService.shutdown();
+    }
+
+    private Result run(Mode mode, int workers) {
+        resetCounters();
+        log(mode + " workers=" + workers + " hotRows=" + HOT_ROWS);
+
+        retryingTransactionExecutor.resetMetrics();
+        var lockWaitsBefore = dataProcessor.lockWaits();
+        var running = new AtomicBoolean(true);
+        var lockMonitor = executorService.submit(() -> monitorLocks(running));
+
+        var latchStart = new CountDownLatch(1);
+        var futures = new ArrayList<Future<WorkerResult>>();
+        for (int i = 0; i < workers; i++) {
+            futures.add(workersExecutorService.submit(() -> {
+                await(latchStart);
+                var commits = 0;
+                var retries = 0;
+                for (int operation = 0; operation < OPERATIONS_PER_WORKER; operation++) {
+                    var id = ThreadLocalRandom.current().nextInt(1, HOT_ROWS + 1);
+                    if (mode == Mode.PESSIMISTIC) {
+                        incrementPessimistic(id);
+                    } else {
+                        retries += incrementOptimistic(id);
+                    }
+                    commits++;
+                }
+                return new WorkerResult(commits, retries);
+            }));
+        }
+
+        var stopWatch = new StopWatch();
+        stopWatch.start();
+        latchStart.countDown();
+        var total = futures.stream()
+                .map(OptimisticVsPessimisticUpdate::get)
+                .reduce(new WorkerResult(0, 0), WorkerResult::plus);
+        stopWatch.stop();
+
+        running.set(false);
+        var locks = get(lockMonitor);
+        var lockWaits = dataProcessor.lockWaits().minus(lockWaitsBefore);
+        var lostUpdates = total.commits - counterSum();
+        retryingTransactionExecutor.printMetrics();
+
+        return new Result(
+                mode,
+                workers,
+                total.commits,
+                total.retries,
+                stopWatch.getTotalTimeSeconds(),
+                total.commits / stopWatch.getTotalTimeSeconds(),
+                (double) total.retries / total.commits,
+                locks.average(),
+                locks.max,
+                lockWaits,
+                lostUpdates);
+    }
+
+    private void incrementPessimistic(int id) {
+        retryingTransactionExecutor.executeWithoutResult("pessimistic-increment", LOCK_TIMEOUT, status -> {
+            var value = jdbcTemplate.queryForObject("""
+                    SELECT STATUS
+                    FROM <<tableName>> WITH (UPDLOCK, ROWLOCK)
+                    WHERE ID = ?""".replace("<<tableName>>", TABLE_NAME), String.class, id);
+            sleep(THINK_MILLIS);
+            jdbcTemplate.update("""
+                    UPDATE <<tableName>>
+                    SET STATUS = ?
+                    WHERE ID = ?""".replace("<<tableName>>", TABLE_NAME), increment(value), id);
+        });
+    }
+
+    /**
+     * @return number of retries needed to update the row
+     */
+    private int incrementOptimistic(int id) {
+        for (int retry = 0; retry <= MAX_RETRIES; retry++) {
+            // read committed snapshot => no shared locks, we just remember row version
+            var row = jdbcTemplate.queryForObject("""
+                    SELECT STATUS, RV
+                    FROM <<tableName>>
+                    WHERE ID = ?""".replace("<<tableName>>", TABLE_NAME),
+                    (rs, rowNum) -> new VersionedValue(rs.getString("STATUS"), rs.getBytes("RV")), id);
+            sleep(THINK_MILLIS);
+            var updateCount = retryingTransactionExecutor.execute("optimistic-compare-and-set", LOCK_TIMEOUT, status -> jdbcTemplate.update("""
+                    UPDATE <<tableName>>
+                    SET STATUS = ?
+                    WHERE ID = ?
+                      AND RV = ?""".replace("<<tableName>>", TABLE_NAME), increment(row.value), id, row.rowVersion));
+            if (updateCount != null && updateCount == 1) {
+                return retry;
+            }
+        }
+        throw new IllegalStateException("Unable to update ID=" + id + " in " + MAX_RETRIES + " retries");
+    }
+
+    private LockSamples monitorLocks(AtomicBoolean running) {
+        var samples = 0;
+        var sum = 0L;
+        var max = 0;
+        while (running.get()) {
+            var count = dataProcessor.lockCountAllSessions(executorService);
+            samples++;
+            sum += count;
+            max = Math.max(max, count);
+            sleep(10);
+        }
+        return new LockSamples(samples, sum, max);
+    }
+
+    private void resetCounters() {
+        dataProcessor.truncateTable(TABLE_NAME);
+        dataProcessor.insertRecordsFooLockTable(HOT_ROWS, TABLE_NAME);
+        transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.update("UPDATE " + TABLE_NAME + " SET STATUS = '0'"));
+    }
+
+    private long counterSum() {
+        return jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(CAST(STATUS AS bigint)), 0) FROM " + TABLE_NAME, Number.class).longValue();
+    }
+
+    private static String increment(String value) {
+        return String.valueOf(Long.parseLong(value) + 1);
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get(5, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ExceptionUtils.rethrow(e);
+        } catch (Exception e) {
+            return ExceptionUtils.rethrow(e instanceof ExecutionException ? e.getCause() : e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(1, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Waiting time elapsed before the count reached zero");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private static void sleep(int millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private static void log(String msg) {
+        System.out.println(LocalDateTime.now() + " [" + Thread.currentThread().getName() + "]> " + msg);
+    }
+
+    enum Mode {
+        PESSIMISTIC,
+        OPTIMISTIC
+    }
+
+    record VersionedValue(String value, byte[] rowVersion) {
+    }
+
+    record WorkerResult(int commits, int retries) {
+        WorkerResult plus(WorkerResult other) {
+            return new WorkerResult(commits + other.commits, retries + other.retries);
+        }
+    }
+
+    record LockSamples(int samples, long sum, int max) {
+        double average() {
+            return samples == 0 ? 0 : (double) sum / samples;
+        }
+    }
+
+    record Result(
+            Mode mode,
+            int workers,
+            int commits,
+            int retries,
+            double totalSeconds,
+            double commitsPerSecond,
+            double retriesPerCommit,
+            double averageLocks,
+            int maxLocks,
+            DataProcessor.LockWaits lockWaits,
+            long lostUpdates
+    ) {
+    }
+}
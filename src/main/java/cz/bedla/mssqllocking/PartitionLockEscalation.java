@@ -0,0 +1,209 @@
+package cz.bedla.mssqllocking;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StopWatch;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@Component
+@Profile("partition-lock-escalation")
+class PartitionLockEscalation implements InitializingBean {
+    private static final String TABLE_NAME = "foo.FOO_LOCK_TABLE_PARTITIONED";
+    // has to match boundaries of PF_FOO_LOCK_TABLE_PARTITIONED in changelog.xml
+    private static final int ROWS_PER_PARTITION = 10_000;
+    private static final int PARTITION_COUNT = 4;
+    private static final int ITERATIONS = 5;
+    private static final int HOLD_MILLIS = 500;
+    private static final Duration LOCK_TIMEOUT = Duration.ofSeconds(10);
+
+    private final DataProcessor dataProcessor;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RetryingTransactionExecutor retryingTransactionExecutor;
+    private final ExecutorService writersExecutorService;
+    private final ExecutorService executorService;
+
+    PartitionLockEscalation(
+            DataProcessor dataProcessor,
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            RetryingTransactionExecutor retryingTransactionExecutor
+    ) {
+        this.dataProcessor = dataProcessor;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.retryingTransactionExecutor = retryingTransactionExecutor;
+        this.writersExecutorService = Executors.newFixedThreadPool(PARTITION_COUNT);
+        this.executorService = Executors.newFixedThreadPool(PARTITION_COUNT);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        dataProcessor.truncateTable(TABLE_NAME);
+        dataProcessor.insertRecordsFooLockTable(ROWS_PER_PARTITION * PARTITION_COUNT, TABLE_NAME);
+
+        var tableResult = runWriters("TABLE");
+        log("=========================================================");
+        var autoResult = runWriters("AUTO");
+        log("=========================================================");
+
+        log(tableResult.toString());
+        log(autoResult.toString());
+        log("AUTO/TABLE throughput ratio = " + (autoResult.transactionsPerSecond() / tableResult.transactionsPerSecond()));
+
+        writersExecutorService.shutdown();
+        executorService.shutdown();
+    }
+
+    private Result runWriters(String lockEscalation) {
+        setLockEscalation(lockEscalation);
+        log("LOCK_ESCALATION = " + currentLockEscalation());
+
+        retryingTransactionExecutor.resetMetrics();
+        var lockWaitsBefore = dataProcessor.lockWaits();
+        var lockPromotionsBefore = dataProcessor.lockPromotions(TABLE_NAME);
+
+        var latchStart = new CountDownLatch(1);
+        var writers = new ArrayList<Future<Locks>>();
+        for (int partition = 1; partition <= PARTITION_COUNT; partition++) {
+            var currentPartition = partition;
+            writers.add(writersExecutorService.submit(() -> {
+                await("Writer-" + currentPartition, latchStart);
+                return updatePartition(currentPartition);
+            }));
+        }
+
+        var stopWatch = new StopWatch();
+        stopWatch.start();
+        latchStart.countDown();
+        var maxLocks = writers.stream()
+                .map(PartitionLockEscalation::get)
+                .reduce(new Locks(0, 0, 0), Locks::max);
+        stopWatch.stop();
+
+        var lockWaits = dataProcessor.lockWaits().minus(lockWaitsBefore);
+        var lockPromotions = dataProcessor.lockPromotions(TABLE_NAME).minus(lockPromotionsBefore);
+        var transactions = PARTITION_COUNT * ITERATIONS;
+        retryingTransactionExecutor.printMetrics();
+        return new Result(
+                lockEscalation,
+                transactions,
+                stopWatch.getTotalTimeSeconds(),
+                transactions / stopWatch.getTotalTimeSeconds(),
+                lockWaits,
+                lockPromotions,
+                maxLocks);
+    }
+
+    private Locks updatePartition(int partition) {
+        var name = "Writer-" + partition;
+        var maxLocks = new Locks(0, 0, 0);
+        for (int iteration = 1; iteration <= ITERATIONS; iteration++) {
+            var currentIteration = iteration;
+            var stopWatch = new StopWatch();
+            stopWatch.start();
+            var locks = retryingTransactionExecutor.execute("update-partition", LOCK_TIMEOUT, status -> {
+                var sessionId = dataProcessor.currentSessionId();
+                var updateCount = jdbcTemplate.update("""
+                                UPDATE <<tableName>>
+                                SET STATUS = ?
+                                WHERE ID > ?
+                                  AND ID <= ?""".replace("<<tableName>>", TABLE_NAME),
+                        "P" + partition + "-" + currentIteration,
+                        (partition - 1) * ROWS_PER_PARTITION,
+                        partition * ROWS_PER_PARTITION);
+                var currentLocks = new Locks(
+                        dataProcessor.rowLockCountForSession(executorService, sessionId),
+                        dataProcessor.hobtLockCountForSession(executorService, sessionId),
+                        dataProcessor.tableLockCountForSession(executorService, sessionId));
+                log(name + " iteration " + currentIteration + " update-count = " + updateCount + ", " + currentLocks);
+                sleep(HOLD_MILLIS);
+                return currentLocks;
+            });
+            stopWatch.stop();
+            log(name + " iteration " + currentIteration + " total seconds " + stopWatch.getTotalTimeSeconds());
+            maxLocks = maxLocks.max(locks);
+        }
+        return maxLocks;
+    }
+
+    private void setLockEscalation(String lockEscalation) {
+        transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.update("ALTER TABLE " + TABLE_NAME + " SET (LOCK_ESCALATION = " + lockEscalation + ")"));
+    }
+
+    private String currentLockEscalation() {
+        return jdbcTemplate.queryForObject("""
+                SELECT lock_escalation_desc
+                FROM sys.tables
+                WHERE object_id = OBJECT_ID(?)""", String.class, TABLE_NAME);
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get(5, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ExceptionUtils.rethrow(e);
+        } catch (Exception e) {
+            return ExceptionUtils.rethrow(e instanceof ExecutionException ? e.getCause() : e);
+        }
+    }
+
+    private static void await(String why, CountDownLatch latch) {
+        try {
+            if (!latch.await(1, TimeUnit.MINUTES)) {
+                throw new IllegalStateException(why + " waiting time elapsed before the count reached zero");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private static void sleep(int millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ExceptionUtils.rethrow(e);
+        }
+    }
+
+    private static void log(String msg) {
+        System.out.println(LocalDateTime.now() + " [" + Thread.currentThread().getName() + "]> " + msg);
+    }
+
+    record Locks(int rowLockCount, int hobtLockCount, int tableLockCount) {
+        Locks max(Locks other) {
+            return new Locks(
+                    Math.max(rowLockCount, other.rowLockCount),
+                    Math.max(hobtLockCount, other.hobtLockCount),
+                    Math.max(tableLockCount, other.tableLockCount));
+        }
+    }
+
+    record Result(
+            String lockEscalation,
+            int transactions,
+            double totalSeconds,
+            double transactionsPerSecond,
+            DataProcessor.LockWaits lockWaits,
+            DataProcessor.LockPromotions lockPromotions,
+            Locks maxLocks
+    ) {
+    }
+}
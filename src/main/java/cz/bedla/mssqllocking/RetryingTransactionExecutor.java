@@ -0,0 +1,240 @@
+package cz.bedla.mssqllocking;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Executes transaction with {@code LOCK_TIMEOUT} set for its duration and retries it when it was chosen as deadlock
+ * victim (error 1205) or when lock request timed out (error 1222).
+ * <p>
+ * Retries wait for exponential backoff with full jitter and are limited by retry budget shared by all transactions,
+ * so contention is not made worse by retry storms. Attempts, errors, and time wasted by failed attempts and backoff
+ * are recorded per transaction type.
+ */
+@Component
+public class RetryingTransactionExecutor {
+    private static final int MAX_ATTEMPTS = 10;
+    private static final long BASE_BACKOFF_MILLIS = 5;
+    private static final long MAX_BACKOFF_MILLIS = 1_000;
+    // every transaction adds 0.2 token, every retry takes 1 token => retries are at most ~20 % of transactions
+    private static final double RETRY_BUDGET_RATIO = 0.2;
+    private static final double RETRY_BUDGET_MAX_TOKENS = 10;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+    private double retryTokens = RETRY_BUDGET_MAX_TOKENS;
+
+    public RetryingTransactionExecutor(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    public void executeWithoutResult(String transactionType, Duration lockTimeout, Consumer<TransactionStatus> action) {
+        execute(transactionType, lockTimeout, status -> {
+            action.accept(status);
+            return null;
+        });
+    }
+
+    public <T> T execute(String transactionType, Duration lockTimeout, TransactionCallback<T> action) {
+        var typeMetrics = metrics.computeIfAbsent(transactionType, it -> new Metrics());
+        typeMetrics.transactions.increment();
+        depositRetryToken();
+
+        var start = System.nanoTime();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                var attemptStart = System.nanoTime();
+                typeMetrics.attempts.increment();
+                try {
+                    var result = transactionTemplate.execute(status -> executeWithLockTimeout(lockTimeout, action, status));
+                    typeMetrics.commits.increment();
+                    return result;
+                } catch (RuntimeException e) {
+                    var error = classify(e);
+                    typeMetrics.record(error);
+                    typeMetrics.wastedNanos.add(System.nanoTime() - attemptStart);
+
+                    if (error == SqlServerError.NON_RETRYABLE || attempt >= MAX_ATTEMPTS) {
+                        typeMetrics.failures.increment();
+                        throw e;
+                    }
+                    if (!withdrawRetryToken()) {
+                        typeMetrics.retryBudgetExhausted.increment();
+                        typeMetrics.failures.increment();
+                        throw e;
+                    }
+
+                    var backoffStart = System.nanoTime();
+                    sleep(backoffMillis(attempt));
+                    typeMetrics.wastedNanos.add(System.nanoTime() - backoffStart);
+                }
+            }
+        } finally {
+            typeMetrics.totalNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public List<TransactionMetrics> metrics() {
+        return metrics.entrySet().stream()
+                .map(entry -> entry.getValue().snapshot(entry.getKey()))
+                .sorted(Comparator.comparing(TransactionMetrics::transactionType))
+                .toList();
+    }
+
+    public void printMetrics() {
+        for (TransactionMetrics transactionMetrics : metrics()) {
+            System.out.println(transactionMetrics + " attemptsPerTransaction=" + transactionMetrics.attemptsPerTransaction());
+        }
+    }
+
+    /**
+     * Clears metrics and refills retry budget, so runs of a benchmark do not influence each other.
+     */
+    public synchronized void resetMetrics() {
+        metrics.clear();
+        retryTokens = RETRY_BUDGET_MAX_TOKENS;
+    }
+
+    private <T> T executeWithLockTimeout(Duration lockTimeout, TransactionCallback<T> action, TransactionStatus status) {
+        jdbcTemplate.execute("SET LOCK_TIMEOUT " + lockTimeout.toMillis());
+        T result;
+        try {
+            result = action.doInTransaction(status);
+        } catch (RuntimeException e) {
+            try {
+                resetLockTimeout();
+            } catch (RuntimeException resetException) {
+                e.addSuppressed(resetException);
+            }
+            throw e;
+        }
+        // setting is per session, connection would go back to the pool with it otherwise
+        resetLockTimeout();
+        return result;
+    }
+
+    private void resetLockTimeout() {
+        jdbcTemplate.execute("SET LOCK_TIMEOUT -1");
+    }
+
+    synchronized void depositRetryToken() {
+        retryTokens = Math.min(RETRY_BUDGET_MAX_TOKENS, retryTokens + RETRY_BUDGET_RATIO);
+    }
+
+    synchronized boolean withdrawRetryToken() {
+        if (retryTokens < 1) {
+            return false;
+        }
+        retryTokens--;
+        return true;
+    }
+
+    /**
+     * Exponential backoff with full jitter - random value between 0 and {@code BASE * 2^(attempt - 1)}.
+     */
+    static long backoffMillis(int attempt) {
+        var ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    static SqlServerError classify(Throwable e) {
+        for (Throwable cause : ExceptionUtils.getThrowableList(e)) {
+            if (cause instanceof SQLException sqlException) {
+                for (SQLException next = sqlException; next != null; next = next.getNextException()) {
+                    switch (next.getErrorCode()) {
+                        case 1205:
+                            return SqlServerError.DEADLOCK_VICTIM;
+                        case 1222:
+                            return SqlServerError.LOCK_TIMEOUT;
+                        default:
+                    }
+                }
+            }
+        }
+        return SqlServerError.NON_RETRYABLE;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ExceptionUtils.rethrow(e);
+        }
+    }
+
+    enum SqlServerError {
+        DEADLOCK_VICTIM,
+        LOCK_TIMEOUT,
+        NON_RETRYABLE
+    }
+
+    private static final class Metrics {
+        private final LongAdder transactions = new LongAdder();
+        private final LongAdder commits = new LongAdder();
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder deadlocks = new LongAdder();
+        private final LongAdder lockTimeouts = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder retryBudgetExhausted = new LongAdder();
+        private final LongAdder wastedNanos = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        void record(SqlServerError error) {
+            switch (error) {
+                case DEADLOCK_VICTIM -> deadlocks.increment();
+                case LOCK_TIMEOUT -> lockTimeouts.increment();
+                case NON_RETRYABLE -> {
+                }
+            }
+        }
+
+        TransactionMetrics snapshot(String transactionType) {
+            return new TransactionMetrics(
+                    transactionType,
+                    transactions.sum(),
+                    commits.sum(),
+                    attempts.sum(),
+                    deadlocks.sum(),
+                    lockTimeouts.sum(),
+                    failures.sum(),
+                    retryBudgetExhausted.sum(),
+                    wastedNanos.sum() / 1_000_000.0,
+                    totalNanos.sum() / 1_000_000.0);
+        }
+    }
+
+    public record TransactionMetrics(
+            String transactionType,
+            long transactions,
+            long commits,
+            long attempts,
+            long deadlocks,
+            long lockTimeouts,
+            long failures,
+            long retryBudgetExhausted,
+            double wastedMillis,
+            double totalMillis
+    ) {
+        public double attemptsPerTransaction() {
+            return transactions == 0 ? 0 : (double) attempts / transactions;
+        }
+    }
+}
@@ -159,7 +159,7 @@ class RowLockWithAndWithoutUpdateOnKey implements InitializingBean {
 
         transactionTemplate.executeWithoutResult(status -> {
             var rows = jdbcTemplate.queryForList("""
-                    SELECT *
+                    SELECT ID, STATUS, EXECUTION_START, EXECUTION_END
                     FROM <<tableName>>
                     """.replace("<<tableName>>", tableName));
             println("final records");
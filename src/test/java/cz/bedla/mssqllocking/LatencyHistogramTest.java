@@ -0,0 +1,90 @@
+package cz.bedla.mssqllocking;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketBoundaries() {
+        var histogram = new LatencyHistogram();
+        histogram.record(15);
+        histogram.record(16);
+        histogram.record(31);
+        histogram.record(32);
+        histogram.record(33);
+        histogram.record(63);
+        histogram.record(64);
+
+        // values below 16 have own buckets, every next power of 2 is split to 16 buckets
+        assertThat(histogram.buckets()).isEqualTo(Map.of(
+                15, 1L,
+                16, 1L,
+                31, 1L,
+                32, 2L,
+                47, 1L,
+                48, 1L));
+        assertThat(histogram.count()).isEqualTo(7);
+        assertThat(histogram.max()).isEqualTo(67);
+    }
+
+    @Test
+    void upperBoundOfBucket() {
+        assertThat(maxOf(16)).isEqualTo(16);
+        assertThat(maxOf(32)).isEqualTo(33);
+        assertThat(maxOf(63)).isEqualTo(63);
+        assertThat(maxOf(64)).isEqualTo(67);
+    }
+
+    @Test
+    void percentiles() {
+        var histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.percentile(50)).isEqualTo(51);
+        assertThat(histogram.percentile(99)).isEqualTo(99);
+        assertThat(histogram.max()).isEqualTo(103);
+    }
+
+    @Test
+    void mergeAddsCountsOfSameBuckets() {
+        var first = new LatencyHistogram();
+        var second = new LatencyHistogram();
+        for (int value = 1; value <= 50; value++) {
+            first.record(value);
+        }
+        for (int value = 51; value <= 100; value++) {
+            second.record(value);
+        }
+        second.record(16);
+
+        var merged = new LatencyHistogram();
+        merged.merge(first);
+        merged.merge(second);
+
+        assertThat(merged.count()).isEqualTo(101);
+        assertThat(merged.buckets().get(16)).isEqualTo(2L);
+        assertThat(merged.percentile(50)).isEqualTo(51);
+        assertThat(merged.percentile(99)).isEqualTo(99);
+    }
+
+    @Test
+    void emptyHistogram() {
+        var histogram = new LatencyHistogram();
+
+        assertThat(histogram.count()).isZero();
+        assertThat(histogram.percentile(50)).isZero();
+        assertThat(histogram.max()).isZero();
+    }
+
+    private static long maxOf(long value) {
+        var histogram = new LatencyHistogram();
+        histogram.record(value);
+        return histogram.max();
+    }
+}
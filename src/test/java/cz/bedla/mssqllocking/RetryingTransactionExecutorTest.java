@@ -0,0 +1,165 @@
+package cz.bedla.mssqllocking;
+
+import cz.bedla.mssqllocking.RetryingTransactionExecutor.SqlServerError;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class RetryingTransactionExecutorTest {
+    private static final Duration LOCK_TIMEOUT = Duration.ofSeconds(1);
+
+    private final RetryingTransactionExecutor executor = new RetryingTransactionExecutor(
+            mock(JdbcTemplate.class),
+            new TransactionTemplate(mock(PlatformTransactionManager.class)));
+
+    @Test
+    void classifyDeadlockVictim() {
+        assertThat(RetryingTransactionExecutor.classify(sqlError(1205))).isEqualTo(SqlServerError.DEADLOCK_VICTIM);
+    }
+
+    @Test
+    void classifyLockTimeout() {
+        assertThat(RetryingTransactionExecutor.classify(sqlError(1222))).isEqualTo(SqlServerError.LOCK_TIMEOUT);
+    }
+
+    @Test
+    void classifyOtherErrors() {
+        // unique key violation
+        assertThat(RetryingTransactionExecutor.classify(sqlError(2627))).isEqualTo(SqlServerError.NON_RETRYABLE);
+        assertThat(RetryingTransactionExecutor.classify(new IllegalStateException("no SQL error")))
+                .isEqualTo(SqlServerError.NON_RETRYABLE);
+    }
+
+    @Test
+    void classifyChainedSqlException() {
+        var first = new SQLException("Statement has been terminated", "HY000", 3621);
+        first.setNextException(new SQLException("Transaction was deadlocked", "40001", 1205));
+
+        assertThat(RetryingTransactionExecutor.classify(new UncategorizedSQLException("update", "UPDATE", first)))
+                .isEqualTo(SqlServerError.DEADLOCK_VICTIM);
+    }
+
+    @Test
+    void classifySqlExceptionDeepInCauseChain() {
+        var e = new IllegalStateException("wrapper", sqlError(1222));
+
+        assertThat(RetryingTransactionExecutor.classify(e)).isEqualTo(SqlServerError.LOCK_TIMEOUT);
+    }
+
+    @Test
+    void backoffIsWithinExponentialCeiling() {
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(RetryingTransactionExecutor.backoffMillis(1)).isBetween(0L, 5L);
+            assertThat(RetryingTransactionExecutor.backoffMillis(3)).isBetween(0L, 20L);
+            assertThat(RetryingTransactionExecutor.backoffMillis(8)).isBetween(0L, 640L);
+        }
+    }
+
+    @Test
+    void backoffIsCapped() {
+        var max = 0L;
+        for (int i = 0; i < 1_000; i++) {
+            var backoff = RetryingTransactionExecutor.backoffMillis(100);
+            assertThat(backoff).isBetween(0L, 1_000L);
+            max = Math.max(max, backoff);
+        }
+        assertThat(max).isGreaterThan(500);
+    }
+
+    @Test
+    void retryBudgetIsExhaustedAfterMaxTokens() {
+        for (int i = 0; i < 10; i++) {
+            assertThat(executor.withdrawRetryToken()).as("retry %d", i + 1).isTrue();
+        }
+        assertThat(executor.withdrawRetryToken()).isFalse();
+
+        // every transaction deposits 0.2 token
+        for (int i = 0; i < 4; i++) {
+            executor.depositRetryToken();
+        }
+        assertThat(executor.withdrawRetryToken()).isFalse();
+        executor.depositRetryToken();
+        assertThat(executor.withdrawRetryToken()).isTrue();
+    }
+
+    @Test
+    void resetMetricsRefillsRetryBudget() {
+        while (executor.withdrawRetryToken()) {
+            // drain budget
+        }
+
+        executor.resetMetrics();
+
+        assertThat(executor.withdrawRetryToken()).isTrue();
+    }
+
+    @Test
+    void retryLockTimeout() {
+        var attempts = new AtomicInteger();
+
+        var result = executor.execute("test", LOCK_TIMEOUT, status -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw sqlError(1222);
+            }
+            return "done";
+        });
+
+        assertThat(result).isEqualTo("done");
+        assertThat(executor.metrics()).singleElement().satisfies(metrics -> {
+            assertThat(metrics.transactions()).isEqualTo(1);
+            assertThat(metrics.attempts()).isEqualTo(2);
+            assertThat(metrics.lockTimeouts()).isEqualTo(1);
+            assertThat(metrics.commits()).isEqualTo(1);
+            assertThat(metrics.failures()).isZero();
+            assertThat(metrics.attemptsPerTransaction()).isEqualTo(2.0);
+        });
+    }
+
+    @Test
+    void doNotRetryNonRetryableError() {
+        var error = sqlError(2627);
+
+        assertThatThrownBy(() -> executor.executeWithoutResult("test", LOCK_TIMEOUT, status -> {
+            throw error;
+        })).isSameAs(error);
+
+        assertThat(executor.metrics()).singleElement().satisfies(metrics -> {
+            assertThat(metrics.attempts()).isEqualTo(1);
+            assertThat(metrics.failures()).isEqualTo(1);
+            assertThat(metrics.deadlocks()).isZero();
+        });
+    }
+
+    @Test
+    void doNotRetryWhenBudgetIsExhausted() {
+        while (executor.withdrawRetryToken()) {
+            // drain budget
+        }
+        var error = sqlError(1205);
+
+        assertThatThrownBy(() -> executor.executeWithoutResult("test", LOCK_TIMEOUT, status -> {
+            throw error;
+        })).isSameAs(error);
+
+        assertThat(executor.metrics()).singleElement().satisfies(metrics -> {
+            assertThat(metrics.attempts()).isEqualTo(1);
+            assertThat(metrics.deadlocks()).isEqualTo(1);
+            assertThat(metrics.retryBudgetExhausted()).isEqualTo(1);
+            assertThat(metrics.failures()).isEqualTo(1);
+        });
+    }
+
+    private static UncategorizedSQLException sqlError(int errorCode) {
+        return new UncategorizedSQLException("update", "UPDATE", new SQLException("error " + errorCode, "S0001", errorCode));
+    }
+}